@@ -23,6 +23,15 @@ public class URMCPUStatReader {
 	/** Used to mark CPUs in the results array as shutdown. */
 	private static final float CPU_IS_ASLEEP = -1;
 	
+	/** Used to mark CPUs in the results array that are not in the CPU mask. */
+	public static final float CPU_NOT_REQUESTED = -2;
+	
+	/** CPU mask selecting the aggregate and every core. See setCPUMask(). */
+	public static final long ALL_CPUS = -1;
+	
+	/** Number of positions a CPU mask has a bit for: the aggregate and cpu0-cpu62. */
+	public static final int MASK_BITS = 64;
+	
 	/////////////////////////////////////////////////////////////////////////////////////////////
 	//  THE INDEX VALUES ARE FOR THE INDEX IN THE PARSED STRING, NOT IN THE Long[] JIFFIES ARRAY!!!
 	//	FOR THE Long[] ARRAY, SUBTRACT 1
@@ -49,44 +58,32 @@ public class URMCPUStatReader {
 	/** The time spent servicing softirqs */
 	private static final int INDEX_SOFTIRQ = 6;
 	
-	/** Support 8 cores max for now. */
-	private static final int MAX_CPUS = 8;
+	/** Initial number of results, including the aggregate. Grows as needed. */
+	private static final int INITIAL_CPUS = 8;
 	
 	/** Path to the /proc/stat file */
 	private static final String PROC_STAT_PATH = "/proc/stat";
 	
 	/** List of all possible CPUs that could appear in /proc/stat */
-	private ArrayList<String> mCPUNames = new ArrayList<String>(MAX_CPUS);
+	private ArrayList<String> mCPUNames = new ArrayList<String>(INITIAL_CPUS);
 	
 	/** Total number of results seen so far */
 	private int mTotalCPUNames;
 	
+	/** The CPUs to read. See setCPUMask(). */
+	private volatile long mCPUMask = ALL_CPUS;
+	
+	/** Whether each CPU was read during the current reading. Grows with mCPUNames. */
+	private boolean[] mSeen = new boolean[INITIAL_CPUS];
+	
 	/** File reader for /proc/stat */
 	RandomAccessFile mStatFileReader;
 
 	/** 
-	 * Used for buffering the /proc/stat file
+	 * Used for buffering and parsing the /proc/stat file
 	 */
-	private byte[] mBuffer = new byte[8192];
-	
-	/** We will rely on this because it's fast, but it does make the code more
-	 prone to breaking of the format of the /proc/stat file ever changes. */
-	private static final int FIRST_STAT_OFFSET = 5;
-	
-	/** Just store the powers of 10 so they never have to be computed. */
-	private static final long[] POWERS_10 = { 
-		  1, 	
-		  10, 
-		  100, 
-		  1000, 
-		  10000, 
-		  100000, 
-		  1000000, 
-		  10000000, 
-		  100000000,
-		  1000000000
-	};
-
+	private URMProcParser mParser = new URMProcParser(8192);
+	
 	/** No reason not to re-use this. Each call to getUsage() will swap this with mLastReading. */
 	private HashMap<String,Long[]> mReading = null;
 	
@@ -95,13 +92,6 @@ public class URMCPUStatReader {
 	 * will swap this with mReading. */
 	private HashMap<String,Long[]> mLastReading = null;
 	
-	/** Swap any objects */
-	private static void swap(Object a, Object b) {
-		Object tmp = a;
-		a = b;
-		b = tmp;
-	}
-	
 	/**
 	 * Constructs a new CPU stat reader. Initializes the time in MS and 
 	 * takes a first reading for use in the first call to getUsage().
@@ -130,6 +120,25 @@ public class URMCPUStatReader {
 		mCPUNames.add("cpu0");
 	}
 	
+	/**
+	 * Selects which CPUs are read. Bit 0 selects the aggregate "cpu" line and
+	 * bit N + 1 selects "cpuN", matching the positions in the results array
+	 * minus one. Lines for CPUs outside the mask are skipped without being
+	 * parsed, and the rest of /proc/stat after the cpu lines is never parsed.
+	 * 
+	 * A CPU that is added to the mask reads as asleep until it has two
+	 * readings to compare.
+	 * 
+	 * The mask only has bits for the first MASK_BITS positions (the aggregate
+	 * and cpu0-cpu62). CPUs above that are only read when the mask is
+	 * ALL_CPUS.
+	 * 
+	 * @param cpuMask The CPUs to read, or ALL_CPUS.
+	 */
+	public void setCPUMask(long cpuMask) {
+		mCPUMask = cpuMask;
+	}
+	
 	/** 
 	 * Must be called before getUsage()! With this class, you are responsible for
 	 * keeping your own time too, so call it the same amount of time before getUsage() 
@@ -147,11 +156,12 @@ public class URMCPUStatReader {
 	 * past #results + 1, because it's not valid data if it is even there. Sometimes, the
 	 * previous reading has a cpu that the current reading does not, or vice versa. This 
 	 * is because sometimes the extra cores go to sleep when they are not in use. If this happens,
-	 * that core will have a -1 in its position in the results array.
+	 * that core will have a -1 in its position in the results array. Cores that are
+	 * not in the CPU mask have CPU_NOT_REQUESTED (-2) in their position.
 	 * 
-	 * @param float[] resultHolder - If null, a new float[] resultHolder will be created
-	 * and returned. On subsequent calls, you should pass this back in in order to
-	 * reuse it. 
+	 * @param float[] resultHolder - If null or too small for the CPUs found, a new
+	 * float[] resultHolder will be created and returned. On subsequent calls, you
+	 * should pass the returned array back in in order to reuse it. 
 	 * 
 	 * This m __must be synchronized__ as interleaving calls to getUsage 
 	 * reuses the same internal HashMap for storing each reading.
@@ -164,10 +174,10 @@ public class URMCPUStatReader {
 		float[] results;
 
 		// Save on allocation.
-		if (resultHolder == null) {
+		if (resultHolder == null || resultHolder.length < mTotalCPUNames + 1) {
 			// The +1 is for the extra element we use to store the number
 			// of results [0]...
-			results = new float[MAX_CPUS + 1];
+			results = new float[Math.max(mTotalCPUNames, INITIAL_CPUS) + 1];
 		} else {
 			results = resultHolder;
 		}
@@ -177,7 +187,13 @@ public class URMCPUStatReader {
 		
 		// Calculate usage for each CPU statistic. If one is not there,
 		// mark it with CPU_IS_ASLEEP (-1)
+		long cpuMask = mCPUMask;
 		for (int i = 0; i < mTotalCPUNames; i++) {
+			if (!isRequested(cpuMask, i)) {
+				results[i + 1] = CPU_NOT_REQUESTED;
+				continue;
+			}
+			
 			String cpuName = mCPUNames.get(i);
 
 			
@@ -192,7 +208,9 @@ public class URMCPUStatReader {
 		}
 		
 		// Swap the current reading and the last reading, to reuse HashMaps
-		swap(mLastReading, mReading);
+		HashMap<String,Long[]> tmp = mLastReading;
+		mLastReading = mReading;
+		mReading = tmp;
 		
 		return results;
 	}
@@ -242,19 +260,47 @@ public class URMCPUStatReader {
 	/**
 	 * Update the list of available CPU statistics. Must be done whenever
 	 * the total number of available CPU statistics increases.
+	 * 
+	 * @param cpuCount The number of CPU statistics, including the aggregate.
 	 */
-	private void updateCPUList(HashMap<String,Long[]> reading) {
+	private void updateCPUList(int cpuCount) {
 		//Start at the difference as to only add new names.
-		int readingSize = reading.size();
-		for (int i = mTotalCPUNames + 1; i <= readingSize; i++) {
-			if (i == 0) {
-				mCPUNames.add("cpu");
-			} else {
-				String cpu = "cpu" + String.valueOf(i - 2);
-				mCPUNames.add(cpu);
-			}
+		for (int i = mTotalCPUNames; i < cpuCount; i++) {
+			String cpu = "cpu" + String.valueOf(i - 1);
+			mCPUNames.add(cpu);
+		}
+		mTotalCPUNames = cpuCount;
+		
+		if (cpuCount > mSeen.length) {
+			boolean[] seen = new boolean[Math.max(cpuCount, mSeen.length * 2)];
+			System.arraycopy(mSeen, 0, seen, 0, mSeen.length);
+			mSeen = seen;
+		}
+	}
+	
+	/** Returns whether the CPU at a position is selected by a CPU mask. */
+	private static boolean isRequested(long cpuMask, int cpu) {
+		if (cpuMask == ALL_CPUS) {
+			return true;
+		}
+		return cpu < MASK_BITS && (cpuMask & (1L << cpu)) != 0;
+	}
+	
+	/**
+	 * Get the position of the CPU whose line starts at i, given the offset
+	 * of the byte after the 'cpu' prefix: 0 for the aggregate, N + 1 for cpuN.
+	 * 
+	 * Leaves getEnd() of the parser just past the CPU number.
+	 * 
+	 * @return int position, or -1 if the line is not a cpu line.
+	 */
+	private int getCpuIndex(int i) {
+		if (mParser.getBuffer()[i] == ' ') {
+			return 0;
 		}
-		mTotalCPUNames = readingSize;
+		
+		int index = (int) mParser.parseLong(i);
+		return mParser.getEnd() > i ? index + 1 : -1;
 	}
 	
 	/**
@@ -299,6 +345,11 @@ public class URMCPUStatReader {
 	 * as a HashMap where the key is the identifier, i.e. "CPU" and the jiffies
 	 * are an array of Long.
 	 * 
+	 * Only the CPUs in the CPU mask are parsed; the lines of the others are
+	 * skipped and their entries removed from the reading, as are the entries
+	 * of CPUs that are asleep. Parsing stops at the first line after the cpu
+	 * lines.
+	 * 
 	 * This has the side effect of updating the list of CPUs that this object
 	 * stores internally.
 	 * 
@@ -312,75 +363,59 @@ public class URMCPUStatReader {
 		// Allocate for the user if he doesn't supply one. It is fine to pass
 		// this one back in.
 		if (reading == null) {
-			reading = new HashMap<String, Long[]>(MAX_CPUS);
+			reading = new HashMap<String, Long[]>(INITIAL_CPUS);
 		}
 		
-		long startTime = System.currentTimeMillis();
-		//Log.d(TAG, "getReading() start time (ms): " + String.valueOf(startTime));
 		try {
-			mStatFileReader.seek(0);
-			int bytesRead = mStatFileReader.read(mBuffer);
+			mParser.readStart(mStatFileReader);
+			byte[] buffer = mParser.getBuffer();
+			int bytesRead = mParser.getLimit();
 			
-			String cpuName = null;
-			int i = -1;
-			Long[] values = null;
-			long value = 0;
-			int valueIndex = 0;
+			long cpuMask = mCPUMask;
+			for (int cpu = 0; cpu < mTotalCPUNames; cpu++) {
+				mSeen[cpu] = false;
+			}
+			int i = 0;
 			
-			while (i++ < bytesRead) {
-				
-				// Check for ^cpu. lines
-				if (mBuffer[i] == 'c' && mBuffer[i + 1] == 'p' && 
-						mBuffer[i + 2] == 'u') {
+			// The cpu lines come first. Nothing after them is needed.
+			while (i + 3 < bytesRead && buffer[i] == 'c' && buffer[i + 1] == 'p' && 
+					buffer[i + 2] == 'u') {
+				int cpu = getCpuIndex(i + 3);
 				
-					// Get appropriate CPU name.
-					cpuName = getCpuName(mBuffer[i + 3]);
+				if (cpu >= 0) {
+					// The aggregate's values start right after "cpu".
+					int valuesStart = cpu == 0 ? i + 3 : mParser.getEnd();
 					
-					// Initialize values
-					values = reading.get(cpuName);
-					if (values == null) {
-						values = new Long[10];
+					if (cpu >= mTotalCPUNames) {
+						updateCPUList(cpu + 1);
 					}
-					valueIndex = 0;
 					
-					i += FIRST_STAT_OFFSET;
-				}
-			
-				
-				if (mBuffer[i] >= '0' && mBuffer[i] <= '9') {
-					int j = i;
-					
-					// Find the end of the number. Don't run over newlines.
-					while (mBuffer[j] != ' ' && mBuffer[j] != '\n') j++; j--;
-					//System.out.println("mBuffer[j]=" + String.valueOf(mBuffer[j]));		
-					
-					int power = j - i;
-					//System.out.println("Power="+power);
-					
-					// Walk i towards j and calculate the value
-					while (i <= j) {
-						long placeValue = (mBuffer[i++] - '0') * POWERS_10[power--];
-						//System.out.println("placeValue=" + placeValue);
-						value += placeValue;
+					if (isRequested(cpuMask, cpu)) {
+						// Get appropriate CPU name.
+						String cpuName = mCPUNames.get(cpu);
+						
+						// Initialize values
+						Long[] values = reading.get(cpuName);
+						if (values == null) {
+							values = new Long[10];
+						}
+						
+						i = parseValues(valuesStart, values);
+						reading.put(cpuName, values);
+						mSeen[cpu] = true;
 					}
 				}
-			
-				if (valueIndex < INDEX_SOFTIRQ) {
-					values[valueIndex++] = value;
-					value = 0;
-				} else if (valueIndex == INDEX_SOFTIRQ) {
-					values[valueIndex++] = value;
-					value = 0;
-					reading.put(cpuName, values);
-				}
-			}
 				
-			//System.out.print(new String(mBuffer));
-			//System.out.println("breakpoint");
-	
+				// Jump to the next line.
+				i = mParser.skipLine(i);
+			}
 			
-			if (reading.size() > mTotalCPUNames) {
-				updateCPUList(reading);
+			// Drop CPUs that were not read this time so they are never compared
+			// against a stale reading.
+			for (int cpu = 0; cpu < mTotalCPUNames; cpu++) {
+				if (!mSeen[cpu]) {
+					reading.remove(mCPUNames.get(cpu));
+				}
 			}
 			
 			return reading;
@@ -391,6 +426,28 @@ public class URMCPUStatReader {
 		}
 	}
 	
+	/**
+	 * Parses the jiffies of one cpu line, up to and including INDEX_SOFTIRQ,
+	 * into values.
+	 * 
+	 * @param i Offset in the buffer of the first value.
+	 * @return int The offset just past the last value parsed.
+	 */
+	private int parseValues(int i, Long[] values) {
+		for (int valueIndex = 0; valueIndex <= INDEX_SOFTIRQ; valueIndex++) {
+			// Don't run over newlines.
+			int start = mParser.nextNumber(i);
+			if (start < 0) {
+				break;
+			}
+			
+			values[valueIndex] = mParser.parseLong(start);
+			i = mParser.getEnd();
+		}
+		
+		return i;
+	}
+	
 	/**
 	 * Call this when you are done using the stat reader!
 	 */
@@ -0,0 +1,221 @@
+package com.tomdignan.UltimateResourceMonitor;
+
+/**
+ * Assigns stable slots to the devices named in a /proc file, such as the
+ * block devices in /proc/diskstats or the interfaces in /proc/net/dev.
+ *
+ * A device keeps the same slot for as long as it keeps appearing in the
+ * file, so results can be published as flat arrays indexed by slot. Names
+ * are matched directly against the bytes in the caller's buffer, and the
+ * slot that was found on the same line of the previous reading is tried
+ * first, so a file whose device list has not changed never needs more than
+ * one comparison per line. The slot arrays grow when every slot is taken,
+ * so no device is ever dropped.
+ */
+class URMDeviceSlots {
+	/** Marks a line that has no assignment. */
+	private static final int NO_SLOT = -1;
+
+	/** Name of the device in each slot as raw bytes, for comparing against the buffer. */
+	private byte[][] mNameBytes;
+
+	/** Number of valid bytes in each element of mNameBytes. */
+	private int[] mNameLengths;
+
+	/** Name of the device in each slot, created once when the slot is assigned. */
+	private String[] mNames;
+
+	/** Whether each slot is currently assigned to a device. */
+	private boolean[] mUsed;
+
+	/** Whether each slot was seen during the current reading. */
+	private boolean[] mSeen;
+
+	/** Whether each slot was newly assigned during the current reading. */
+	private boolean[] mFresh;
+
+	/** The slot that was found on each line during the last reading. */
+	private int[] mLineSlots;
+
+	/** One past the highest slot in use. */
+	private int mSlotCount;
+
+	/**
+	 * @param capacity Initial number of slots. Grows as needed.
+	 */
+	public URMDeviceSlots(int capacity) {
+		mNameBytes = new byte[capacity][];
+		mNameLengths = new int[capacity];
+		mNames = new String[capacity];
+		mUsed = new boolean[capacity];
+		mSeen = new boolean[capacity];
+		mFresh = new boolean[capacity];
+		mLineSlots = new int[capacity];
+		for (int i = 0; i < capacity; i++) {
+			mLineSlots[i] = NO_SLOT;
+		}
+	}
+
+	/** Returns the number of slots that can be used before the arrays grow. */
+	public int getCapacity() {
+		return mUsed.length;
+	}
+
+	/** Must be called before the first call to slotFor() of each reading. */
+	public void beginReading() {
+		for (int i = 0; i < mSlotCount; i++) {
+			mSeen[i] = false;
+			mFresh[i] = false;
+		}
+	}
+
+	/**
+	 * Returns the slot for the device whose name is stored in
+	 * buffer[start, start + length), assigning a free slot if the device
+	 * has not been seen before.
+	 *
+	 * @param line The index of the device line within the file, used to try
+	 * the slot from the last reading first.
+	 * @return int slot
+	 */
+	public int slotFor(byte[] buffer, int start, int length, int line) {
+		int slot = NO_SLOT;
+
+		// Fast path: the device list usually does not change between readings.
+		if (line < mLineSlots.length) {
+			int hint = mLineSlots[line];
+			if (hint != NO_SLOT && mUsed[hint] && matches(hint, buffer, start, length)) {
+				slot = hint;
+			}
+		}
+
+		if (slot == NO_SLOT) {
+			for (int i = 0; i < mSlotCount; i++) {
+				if (mUsed[i] && matches(i, buffer, start, length)) {
+					slot = i;
+					break;
+				}
+			}
+		}
+
+		if (slot == NO_SLOT) {
+			slot = assign(buffer, start, length);
+		}
+
+		if (line >= mLineSlots.length) {
+			growLineSlots(line + 1);
+		}
+		mLineSlots[line] = slot;
+		mSeen[slot] = true;
+		return slot;
+	}
+
+	/**
+	 * Must be called after the last call to slotFor() of each reading. Frees
+	 * the slots of devices that have disappeared.
+	 */
+	public void endReading() {
+		int slotCount = 0;
+		for (int i = 0; i < mSlotCount; i++) {
+			if (mUsed[i] && !mSeen[i]) {
+				mUsed[i] = false;
+				mNames[i] = null;
+			}
+			if (mUsed[i]) {
+				slotCount = i + 1;
+			}
+		}
+		mSlotCount = slotCount;
+	}
+
+	/** Returns one past the highest slot in use. */
+	public int getSlotCount() {
+		return mSlotCount;
+	}
+
+	/** Returns whether the slot was seen during the last reading. */
+	public boolean isSeen(int slot) {
+		return mSeen[slot];
+	}
+
+	/** Returns whether the slot was assigned to a new device during the last reading. */
+	public boolean isFresh(int slot) {
+		return mFresh[slot];
+	}
+
+	/** Returns the name of the device in the slot, or null if the slot is free. */
+	public String getName(int slot) {
+		return slot < mNames.length ? mNames[slot] : null;
+	}
+
+	private boolean matches(int slot, byte[] buffer, int start, int length) {
+		if (mNameLengths[slot] != length) {
+			return false;
+		}
+		byte[] name = mNameBytes[slot];
+		for (int i = 0; i < length; i++) {
+			if (name[i] != buffer[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int assign(byte[] buffer, int start, int length) {
+		int slot = 0;
+		while (slot < mUsed.length && mUsed[slot]) {
+			slot++;
+		}
+		if (slot == mUsed.length) {
+			growSlots(mUsed.length * 2);
+		}
+
+		if (mNameBytes[slot] == null || mNameBytes[slot].length < length) {
+			mNameBytes[slot] = new byte[Math.max(length, 16)];
+		}
+		System.arraycopy(buffer, start, mNameBytes[slot], 0, length);
+		mNameLengths[slot] = length;
+		mNames[slot] = new String(buffer, start, length);
+		mUsed[slot] = true;
+		mFresh[slot] = true;
+		if (slot >= mSlotCount) {
+			mSlotCount = slot + 1;
+		}
+		return slot;
+	}
+
+	private void growSlots(int capacity) {
+		byte[][] nameBytes = new byte[capacity][];
+		System.arraycopy(mNameBytes, 0, nameBytes, 0, mNameBytes.length);
+		mNameBytes = nameBytes;
+
+		int[] nameLengths = new int[capacity];
+		System.arraycopy(mNameLengths, 0, nameLengths, 0, mNameLengths.length);
+		mNameLengths = nameLengths;
+
+		String[] names = new String[capacity];
+		System.arraycopy(mNames, 0, names, 0, mNames.length);
+		mNames = names;
+
+		boolean[] used = new boolean[capacity];
+		System.arraycopy(mUsed, 0, used, 0, mUsed.length);
+		mUsed = used;
+
+		boolean[] seen = new boolean[capacity];
+		System.arraycopy(mSeen, 0, seen, 0, mSeen.length);
+		mSeen = seen;
+
+		boolean[] fresh = new boolean[capacity];
+		System.arraycopy(mFresh, 0, fresh, 0, mFresh.length);
+		mFresh = fresh;
+	}
+
+	private void growLineSlots(int minimum) {
+		int[] lineSlots = new int[Math.max(minimum, mLineSlots.length * 2)];
+		System.arraycopy(mLineSlots, 0, lineSlots, 0, mLineSlots.length);
+		for (int i = mLineSlots.length; i < lineSlots.length; i++) {
+			lineSlots[i] = NO_SLOT;
+		}
+		mLineSlots = lineSlots;
+	}
+}
@@ -0,0 +1,262 @@
+package com.tomdignan.UltimateResourceMonitor;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Base class for readers of /proc files that list one device per line
+ * followed by a row of cumulative counters, such as /proc/diskstats and
+ * /proc/net/dev. Subclasses locate the device name on each line and say
+ * which counter columns they want; this class parses the counters in place
+ * in a reused buffer (see URMProcParser) and turns them into per-second rates.
+ *
+ * Each device is given a stable slot (see URMDeviceSlots) so the results
+ * can be returned as one flat float[] that is reused between calls. The
+ * slots and counters grow when a file lists more devices than they hold.
+ */
+public abstract class URMDeviceStatReader {
+	@SuppressWarnings("unused")
+	private static final String TAG = "URMDeviceStatReader";
+
+	/** Used to mark devices in the results array as absent or not yet measured. */
+	public static final float DEVICE_IS_ABSENT = -1;
+
+	/** Largest value of a counter kept by a 32-bit kernel. */
+	private static final long MAX_32_BIT_COUNTER = 0xFFFFFFFFL;
+
+	/** Initial number of device slots. Grows as needed. */
+	private static final int INITIAL_DEVICES = 64;
+
+	/** File reader for the /proc file */
+	private RandomAccessFile mFileReader;
+
+	/** Buffers and parses the /proc file. Grows if the file does not fit. */
+	protected URMProcParser mParser = new URMProcParser(8192);
+
+	/** Start of the device name on the current line. Set by parseName(). */
+	protected int mNameStart;
+
+	/** End (exclusive) of the device name on the current line. Set by parseName(). */
+	protected int mNameEnd;
+
+	/** Stable slot assignment for the devices in the file */
+	private URMDeviceSlots mSlots = new URMDeviceSlots(INITIAL_DEVICES);
+
+	/** Counter column (after the name) for each field, in ascending order. */
+	private final int[] mColumns;
+
+	/** Multiplier applied to the per-second rate of each field. */
+	private final float[] mScales;
+
+	/** Number of fields per device. */
+	private final int mFieldCount;
+
+	/** Counters from the current reading, indexed by slot * mFieldCount + field */
+	private long[] mCounters;
+
+	/** Counters from the last reading. Swapped with mCounters on each reading. */
+	private long[] mLastCounters;
+
+	/** Time of the last reading, from System.nanoTime() */
+	private long mLastTimeNanos;
+
+	/** Set after the first reading, when there is something to compare against. */
+	private boolean mHasLastReading = false;
+
+	/**
+	 * @param path Path to the /proc file, or a mock file for testing.
+	 * @param columns The counter column, counted from the first number after
+	 * the device name, for each field. Must be in ascending order.
+	 * @param scales Multiplier for the per-second rate of each field.
+	 * @throws FileNotFoundException
+	 */
+	protected URMDeviceStatReader(String path, int[] columns, float[] scales)
+			throws FileNotFoundException {
+		mColumns = columns;
+		mScales = scales;
+		mFieldCount = columns.length;
+		mCounters = new long[INITIAL_DEVICES * mFieldCount];
+		mLastCounters = new long[INITIAL_DEVICES * mFieldCount];
+		mFileReader = new RandomAccessFile(new File(path), "r");
+	}
+
+	/**
+	 * Returns the offset of the first device line in the buffer, skipping any
+	 * header lines.
+	 */
+	protected abstract int skipHeader();
+
+	/**
+	 * Locates the device name on the line starting at i, storing it in
+	 * mNameStart and mNameEnd.
+	 *
+	 * @return int The offset just past the name, where the counters begin,
+	 * or -1 if the line has no device on it.
+	 */
+	protected abstract int parseName(int i);
+
+	/** Returns the number of fields reported for each device. */
+	public int getFieldCount() {
+		return mFieldCount;
+	}
+
+	/**
+	 * Returns the name of the device in a slot of the last results, or null
+	 * if the slot is empty.
+	 */
+	public synchronized String getDeviceName(int slot) {
+		return mSlots.getName(slot);
+	}
+
+	/**
+	 * Returns the rates of every device since the last call.
+	 *
+	 * Devices keep the same slot for as long as they are present. A device
+	 * that has disappeared, or that appeared since the last call, has
+	 * DEVICE_IS_ABSENT in each of its fields. All devices are marked absent on
+	 * the first call.
+	 *
+	 * @param float[] resultHolder - If null or too small for the devices, a
+	 * new float[] will be created and returned. On subsequent calls, you
+	 * should pass the returned array back in in order to reuse it.
+	 *
+	 * @return float[] result [<#slots>, <slot0 field0>, ..., <slot0 fieldN>,
+	 * <slot1 field0>, ...] or null if the file could not be read.
+	 */
+	public synchronized float[] getRates(float[] resultHolder) {
+		long now = System.nanoTime();
+		if (!read()) {
+			return null;
+		}
+
+		float[] results;
+		int slotCount = mSlots.getSlotCount();
+
+		// Save on allocation.
+		if (resultHolder == null || resultHolder.length < slotCount * mFieldCount + 1) {
+			results = new float[mSlots.getCapacity() * mFieldCount + 1];
+		} else {
+			results = resultHolder;
+		}
+
+		results[0] = slotCount;
+
+		float seconds = (now - mLastTimeNanos) / 1000000000f;
+		for (int slot = 0; slot < slotCount; slot++) {
+			int base = slot * mFieldCount;
+			boolean measured = mHasLastReading && seconds > 0 && mSlots.isSeen(slot)
+					&& !mSlots.isFresh(slot);
+			for (int f = 0; f < mFieldCount; f++) {
+				if (measured) {
+					long last = mLastCounters[base + f];
+					long diff = mCounters[base + f] - last;
+
+					// 32-bit kernels wrap the counters every 4 GiB; a counter
+					// that had already grown past 32 bits can only have been
+					// reset, as happens when a device is re-registered.
+					if (diff < 0) {
+						diff = last <= MAX_32_BIT_COUNTER ? diff + (1L << 32) : 0;
+					}
+					results[base + f + 1] = diff / seconds * mScales[f];
+				} else {
+					results[base + f + 1] = DEVICE_IS_ABSENT;
+				}
+			}
+		}
+
+		long[] tmp = mLastCounters;
+		mLastCounters = mCounters;
+		mCounters = tmp;
+		mLastTimeNanos = now;
+		mHasLastReading = true;
+
+		return results;
+	}
+
+	/**
+	 * Reads the file and parses the counters of every device into mCounters.
+	 *
+	 * @return boolean True if the file was read.
+	 */
+	private boolean read() {
+		try {
+			mParser.readFully(mFileReader);
+		} catch (IOException e) {
+			System.out.println(TAG + " read(): caught IOException " + e.getMessage());
+			return false;
+		}
+
+		mSlots.beginReading();
+
+		byte[] buffer = mParser.getBuffer();
+		int limit = mParser.getLimit();
+		int i = skipHeader();
+		int line = 0;
+		while (i < limit) {
+			int start = parseName(i);
+			if (start >= 0) {
+				int slot = mSlots.slotFor(buffer, mNameStart, mNameEnd - mNameStart, line);
+				if ((slot + 1) * mFieldCount > mCounters.length) {
+					growCounters();
+				}
+				parseCounters(start, slot * mFieldCount);
+				line++;
+			}
+			i = mParser.skipLine(i);
+		}
+
+		mSlots.endReading();
+		return true;
+	}
+
+	/** Grows the counter arrays to match the slot capacity, keeping their contents. */
+	private void growCounters() {
+		int length = mSlots.getCapacity() * mFieldCount;
+
+		long[] counters = new long[length];
+		System.arraycopy(mCounters, 0, counters, 0, mCounters.length);
+		mCounters = counters;
+
+		long[] lastCounters = new long[length];
+		System.arraycopy(mLastCounters, 0, lastCounters, 0, mLastCounters.length);
+		mLastCounters = lastCounters;
+	}
+
+	/**
+	 * Parses the wanted counter columns of the line starting at i into
+	 * mCounters[base...]. Stops at the end of the line.
+	 */
+	private void parseCounters(int i, int base) {
+		int column = 0;
+		int field = 0;
+
+		while (field < mFieldCount) {
+			// Don't run over newlines.
+			i = mParser.nextNumber(i);
+			if (i < 0) {
+				return;
+			}
+
+			long value = mParser.parseLong(i);
+			i = mParser.getEnd();
+
+			if (column == mColumns[field]) {
+				mCounters[base + field++] = value;
+			}
+			column++;
+		}
+	}
+
+	/**
+	 * Call this when you are done using the reader!
+	 */
+	public void close() {
+		try {
+			mFileReader.close();
+		} catch (IOException e) {
+			//Log.e(TAG, "close(): caught IOException " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.tomdignan.UltimateResourceMonitor;
+
+import java.io.FileNotFoundException;
+
+/**
+ * Reads block device I/O statistics from /proc/diskstats and reports the
+ * rates of each device. Each line of the file has the form:
+ * 
+ *   <major> <minor> <name> <reads> <reads merged> <sectors read> <ms reading>
+ *   <writes> <writes merged> <sectors written> <ms writing> <ios in progress>
+ *   <ms doing I/O> <weighted ms doing I/O> ...
+ */
+public class URMDiskStatReader extends URMDeviceStatReader {
+	@SuppressWarnings("unused")
+	private static final String TAG = "URMDiskStatReader";
+
+	/** Path to the /proc/diskstats file */
+	private static final String PROC_DISKSTATS_PATH = "/proc/diskstats";
+
+	/** Completed reads per second */
+	public static final int FIELD_READS = 0;
+
+	/** Sectors read per second */
+	public static final int FIELD_SECTORS_READ = 1;
+
+	/** Completed writes per second */
+	public static final int FIELD_WRITES = 2;
+
+	/** Sectors written per second */
+	public static final int FIELD_SECTORS_WRITTEN = 3;
+
+	/** Fraction of the time the device was busy doing I/O [0, 1] */
+	public static final int FIELD_BUSY = 4;
+
+	/** The counter column, after the device name, of each field. */
+	private static final int[] COLUMNS = { 0, 2, 4, 6, 9 };
+
+	/** io_ticks is in ms, so ms per second / 1000 gives the busy fraction. */
+	private static final float[] SCALES = { 1, 1, 1, 1, 0.001f };
+
+	public URMDiskStatReader() throws FileNotFoundException {
+		super(PROC_DISKSTATS_PATH, COLUMNS, SCALES);
+	}
+
+	/** Used for providing a mock /proc/diskstats for testing 
+	 * @throws FileNotFoundException */
+	public URMDiskStatReader(String mockPath) throws FileNotFoundException {
+		super(mockPath, COLUMNS, SCALES);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected int skipHeader() {
+		return 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected int parseName(int i) {
+		byte[] buffer = mParser.getBuffer();
+		int limit = mParser.getLimit();
+
+		// Skip the major and minor numbers.
+		for (int n = 0; n < 2; n++) {
+			i = mParser.skipSpaces(i);
+			while (i < limit && buffer[i] >= '0' && buffer[i] <= '9') i++;
+		}
+
+		i = mParser.skipSpaces(i);
+		mNameStart = i;
+		while (i < limit && buffer[i] != ' ' && buffer[i] != '\n') i++;
+		mNameEnd = i;
+
+		return mNameEnd > mNameStart ? i : -1;
+	}
+}
@@ -47,10 +47,13 @@ implements View.OnClickListener, OnResourcesReceivedListener {
 
     /**
      * Connect the resource monitor to the implemented
-     * OnResourcesReceivedListener.
+     * OnResourcesReceivedListener, asking only for the aggregate and the
+     * cores that have a meter.
      */
     private void attachResourceMonitor() {
     	mResourceMonitor.setOnResourcesReceivedListener(this);
+    	mResourceMonitor.subscribe(URMResourceMonitor.CHANNEL_CPU, 
+    			(1L << mResourceMeters.size()) - 1);
     }
     
     /** 
@@ -108,7 +111,8 @@ implements View.OnClickListener, OnResourcesReceivedListener {
 		public float[] cpuUsages;
 
 		public void run() {
-			for (int i = 1; i <= cpuUsages[0]; i++) {
+			int results = Math.min((int) cpuUsages[0], resourceMeters.size());
+			for (int i = 1; i <= results; i++) {
 				int number = i - 1;
 				URMResourceMeterFragment meter = resourceMeters.get(number);
 				meter.setName("cpu" + (number == 0 ? " " : number + " "));
@@ -0,0 +1,86 @@
+package com.tomdignan.UltimateResourceMonitor;
+
+import java.io.FileNotFoundException;
+
+/**
+ * Reads network interface statistics from /proc/net/dev and reports the
+ * rates of each interface. After two header lines, each line of the file
+ * has the form:
+ * 
+ *   <name>: <rx bytes> <rx packets> <rx errs> <rx drop> <rx fifo> <rx frame>
+ *   <rx compressed> <rx multicast> <tx bytes> <tx packets> <tx errs> <tx drop> ...
+ * 
+ * Older kernels leave no space between the colon and the first counter.
+ */
+public class URMNetStatReader extends URMDeviceStatReader {
+	@SuppressWarnings("unused")
+	private static final String TAG = "URMNetStatReader";
+
+	/** Path to the /proc/net/dev file */
+	private static final String PROC_NET_DEV_PATH = "/proc/net/dev";
+
+	/** Number of header lines before the first interface */
+	private static final int HEADER_LINES = 2;
+
+	/** Bytes received per second */
+	public static final int FIELD_RX_BYTES = 0;
+
+	/** Packets received per second */
+	public static final int FIELD_RX_PACKETS = 1;
+
+	/** Received packets dropped per second */
+	public static final int FIELD_RX_DROPS = 2;
+
+	/** Bytes transmitted per second */
+	public static final int FIELD_TX_BYTES = 3;
+
+	/** Packets transmitted per second */
+	public static final int FIELD_TX_PACKETS = 4;
+
+	/** Transmitted packets dropped per second */
+	public static final int FIELD_TX_DROPS = 5;
+
+	/** The counter column, after the interface name, of each field. */
+	private static final int[] COLUMNS = { 0, 1, 3, 8, 9, 11 };
+
+	private static final float[] SCALES = { 1, 1, 1, 1, 1, 1 };
+
+	public URMNetStatReader() throws FileNotFoundException {
+		super(PROC_NET_DEV_PATH, COLUMNS, SCALES);
+	}
+
+	/** Used for providing a mock /proc/net/dev for testing 
+	 * @throws FileNotFoundException */
+	public URMNetStatReader(String mockPath) throws FileNotFoundException {
+		super(mockPath, COLUMNS, SCALES);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected int skipHeader() {
+		int i = 0;
+		for (int n = 0; n < HEADER_LINES && i < mParser.getLimit(); n++) {
+			i = mParser.skipLine(i);
+		}
+		return i;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected int parseName(int i) {
+		byte[] buffer = mParser.getBuffer();
+		int limit = mParser.getLimit();
+
+		i = mParser.skipSpaces(i);
+		mNameStart = i;
+		while (i < limit && buffer[i] != ':' && buffer[i] != '\n') i++;
+		mNameEnd = i;
+
+		if (i >= limit || buffer[i] != ':' || mNameEnd == mNameStart) {
+			return -1;
+		}
+
+		// Skip the colon.
+		return i + 1;
+	}
+}
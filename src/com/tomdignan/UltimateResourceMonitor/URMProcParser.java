@@ -0,0 +1,123 @@
+package com.tomdignan.UltimateResourceMonitor;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reused buffer and number parser shared by the /proc readers.
+ *
+ * Numbers are parsed in place, a byte at a time, in a single pass that
+ * finds the end of each number while accumulating its value. Every scan
+ * checks the limit of the data, so no read can run past the end of the
+ * buffer.
+ */
+public class URMProcParser {
+	@SuppressWarnings("unused")
+	private static final String TAG = "URMProcParser";
+
+	/** Used for buffering the /proc file. */
+	private byte[] mBuffer;
+
+	/** Number of valid bytes in mBuffer after the last read. */
+	private int mLimit;
+
+	/** Offset just past the last number parsed by parseLong(). */
+	private int mEnd;
+
+	/**
+	 * @param capacity Initial number of bytes that can be buffered.
+	 */
+	public URMProcParser(int capacity) {
+		mBuffer = new byte[capacity];
+	}
+
+	/** Returns the buffer. Only read it up to getLimit(). */
+	public byte[] getBuffer() {
+		return mBuffer;
+	}
+
+	/** Returns the number of valid bytes in the buffer. */
+	public int getLimit() {
+		return mLimit;
+	}
+
+	/** Returns the offset just past the last number parsed by parseLong(). */
+	public int getEnd() {
+		return mEnd;
+	}
+
+	/**
+	 * Reads the whole file from the start, growing the buffer if it does not
+	 * fit.
+	 */
+	public void readFully(RandomAccessFile file) throws IOException {
+		file.seek(0);
+		mLimit = 0;
+		int n;
+		while ((n = file.read(mBuffer, mLimit, mBuffer.length - mLimit)) > 0) {
+			mLimit += n;
+			if (mLimit == mBuffer.length) {
+				byte[] larger = new byte[mBuffer.length * 2];
+				System.arraycopy(mBuffer, 0, larger, 0, mLimit);
+				mBuffer = larger;
+			}
+		}
+	}
+
+	/**
+	 * Reads as much of the start of the file as fits in the buffer with a
+	 * single read, for callers that only need the first lines.
+	 */
+	public void readStart(RandomAccessFile file) throws IOException {
+		file.seek(0);
+		mLimit = Math.max(file.read(mBuffer, 0, mBuffer.length), 0);
+	}
+
+	/**
+	 * Parses the run of digits starting at i and sets getEnd() to the offset
+	 * just past it. Returns 0 with getEnd() == i if there is no digit at i.
+	 */
+	public long parseLong(int i) {
+		byte[] buffer = mBuffer;
+		int limit = mLimit;
+		long value = 0;
+		while (i < limit && buffer[i] >= '0' && buffer[i] <= '9') {
+			value = value * 10 + (buffer[i++] - '0');
+		}
+		mEnd = i;
+		return value;
+	}
+
+	/**
+	 * Returns the offset of the next digit at or after i, or -1 if the line
+	 * or the data ends first.
+	 */
+	public int nextNumber(int i) {
+		while (i < mLimit) {
+			byte b = mBuffer[i];
+			if (b >= '0' && b <= '9') {
+				return i;
+			}
+			if (b == '\n') {
+				return -1;
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the offset just past the newline that ends the line containing
+	 * i. Returns more than getLimit() if the last line has no newline.
+	 */
+	public int skipLine(int i) {
+		while (i < mLimit && mBuffer[i] != '\n') i++;
+		return i + 1;
+	}
+
+	/** Returns the offset of the first byte at or after i that is not a space. */
+	public int skipSpaces(int i) {
+		while (i < mLimit && mBuffer[i] == ' ') i++;
+		return i;
+	}
+}
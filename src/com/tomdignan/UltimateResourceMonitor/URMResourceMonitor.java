@@ -1,6 +1,7 @@
 package com.tomdignan.UltimateResourceMonitor;
 
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import android.util.Log;
 
@@ -20,6 +21,35 @@ public class URMResourceMonitor {
 	public interface OnResourcesReceivedListener {
 		public void onResourcesReceived(float[] cpuUsages);
 	}
+	
+	/** Interface for handling the device rates from the disk and network sources */
+	public interface OnDeviceRatesReceivedListener {
+		/**
+		 * @param source The reader that produced the rates, for looking up
+		 * device names and the number of fields per device.
+		 * @param rates See URMDeviceStatReader.getRates()
+		 */
+		public void onDeviceRatesReceived(URMDeviceStatReader source, float[] rates);
+	}
+	
+	/** Interface for handling the per-thread usage of the drilled-into process */
+	public interface OnThreadUsageReceivedListener {
+		/**
+		 * @param source The reader that produced the usage, for looking up
+		 * thread ids and names.
+		 * @param usage See URMThreadStatReader.getUsage()
+		 */
+		public void onThreadUsageReceived(URMThreadStatReader source, float[] usage);
+		
+		/**
+		 * Called once when the drilled-into process exits. No more usage is
+		 * published for the subscription; call unsubscribe() and
+		 * subscribeThreads() again to drill into another process.
+		 * 
+		 * @param source The reader of the process that exited.
+		 */
+		public void onThreadProcessExited(URMThreadStatReader source);
+	}
 
 	/** 
 	 * Reference to the OnResourcesReceivedListener used to send results back
@@ -27,14 +57,148 @@ public class URMResourceMonitor {
 	 */
 	protected OnResourcesReceivedListener mListener = null;
 	
+	/** Reference to the OnDeviceRatesReceivedListener. */
+	protected volatile OnDeviceRatesReceivedListener mDeviceListener = null;
+	
+	/** Reference to the OnThreadUsageReceivedListener. */
+	protected volatile OnThreadUsageReceivedListener mThreadListener = null;
+	
 	/** Resources will be returned every POLL_FREQUENCY_MS */
 	protected static final int POLL_FREQUENCY_MS = 1000;
 	
+	/** Channel for the CPU usages published to the OnResourcesReceivedListener */
+	public static final int CHANNEL_CPU = 1 << 0;
+	
+	/** Channel for the disk rates published to the OnDeviceRatesReceivedListener */
+	public static final int CHANNEL_DISK = 1 << 1;
+	
+	/** Channel for the network rates published to the OnDeviceRatesReceivedListener */
+	public static final int CHANNEL_NET = 1 << 2;
+	
+	/** 
+	 * Channel for the per-thread usage published to the OnThreadUsageReceivedListener.
+	 * Subscribe with subscribeThreads().
+	 */
+	public static final int CHANNEL_THREADS = 1 << 3;
+	
+	/**
+	 * A consumer's declaration of the channels and CPUs it needs. Returned by
+	 * subscribe() and passed back to unsubscribe().
+	 */
+	public static class Subscription {
+		private final int mChannels;
+		private final long mCPUMask;
+		private final int mPid;
+		
+		private Subscription(int channels, long cpuMask, int pid) {
+			mChannels = channels;
+			mCPUMask = cpuMask;
+			mPid = pid;
+		}
+		
+		public int getChannels() {
+			return mChannels;
+		}
+		
+		public long getCPUMask() {
+			return mCPUMask;
+		}
+		
+		public int getPid() {
+			return mPid;
+		}
+	}
+	
+	/** Every active subscription */
+	private ArrayList<Subscription> mSubscriptions = new ArrayList<Subscription>();
+	
+	/** Union of the channels of every subscription. Read by the monitor thread each tick. */
+	private volatile int mChannels = 0;
+	
+	/** Union of the CPU masks of every subscription with CHANNEL_CPU. */
+	private volatile long mCPUMask = 0;
+	
+	/** The newest subscription with CHANNEL_THREADS, or null. */
+	private volatile Subscription mThreadSubscription = null;
+	
 	/** Register an OnResourcesReceivedListener to get results */
 	public void setOnResourcesReceivedListener(OnResourcesReceivedListener listener) {
 		mListener = listener;
 	}
 	
+	/** Register an OnDeviceRatesReceivedListener to get disk and network rates */
+	public void setOnDeviceRatesReceivedListener(OnDeviceRatesReceivedListener listener) {
+		mDeviceListener = listener;
+	}
+	
+	/** Register an OnThreadUsageReceivedListener to get per-thread usage */
+	public void setOnThreadUsageReceivedListener(OnThreadUsageReceivedListener listener) {
+		mThreadListener = listener;
+	}
+	
+	/**
+	 * Declare the channels and CPUs a consumer needs. Each tick only reads
+	 * the sources for channels that some subscription asks for, and the CPU
+	 * source only parses the CPUs that some subscription asks for. Nothing is
+	 * read while there are no subscriptions.
+	 * 
+	 * @param channels Any combination of CHANNEL_CPU, CHANNEL_DISK and CHANNEL_NET.
+	 * Use subscribeThreads() for CHANNEL_THREADS.
+	 * @param cpuMask The CPUs needed when subscribing to CHANNEL_CPU. Bit 0 is
+	 * the aggregate and bit N + 1 is cpuN, or URMCPUStatReader.ALL_CPUS. Cores
+	 * from cpu63 up have no bit and are only read with ALL_CPUS.
+	 * @return Subscription to pass to unsubscribe() when no longer needed.
+	 */
+	public synchronized Subscription subscribe(int channels, long cpuMask) {
+		Subscription subscription = new Subscription(channels & ~CHANNEL_THREADS, cpuMask, 0);
+		mSubscriptions.add(subscription);
+		updateQuery();
+		return subscription;
+	}
+	
+	/**
+	 * Drill down into the threads of a process. Each tick reads the stat file
+	 * of every thread of the process until the subscription is removed. Only
+	 * one process is drilled into at a time; the newest subscription wins.
+	 * When the process exits, the OnThreadUsageReceivedListener is told once
+	 * and the process is no longer read, even if its pid is reused.
+	 * 
+	 * @param pid The process to drill into.
+	 * @return Subscription to pass to unsubscribe() when no longer needed.
+	 */
+	public synchronized Subscription subscribeThreads(int pid) {
+		Subscription subscription = new Subscription(CHANNEL_THREADS, 0, pid);
+		mSubscriptions.add(subscription);
+		updateQuery();
+		return subscription;
+	}
+	
+	/** Remove a subscription returned by subscribe(). */
+	public synchronized void unsubscribe(Subscription subscription) {
+		mSubscriptions.remove(subscription);
+		updateQuery();
+	}
+	
+	/** Recompute the union of every subscription. */
+	private void updateQuery() {
+		int channels = 0;
+		long cpuMask = 0;
+		Subscription threadSubscription = null;
+		for (int i = 0; i < mSubscriptions.size(); i++) {
+			Subscription subscription = mSubscriptions.get(i);
+			channels |= subscription.mChannels;
+			if ((subscription.mChannels & CHANNEL_CPU) != 0) {
+				cpuMask |= subscription.mCPUMask;
+			}
+			if ((subscription.mChannels & CHANNEL_THREADS) != 0) {
+				threadSubscription = subscription;
+			}
+		}
+		mCPUMask = cpuMask;
+		mThreadSubscription = threadSubscription;
+		mChannels = channels;
+	}
+	
 	/**  
 	 * Publish results to the registered OnResourcesReceivedListener
 	 * If one is not available, a warning will be printed to the logs.
@@ -47,9 +211,33 @@ public class URMResourceMonitor {
 		}
 	}
 	
+	/** Publish device rates to the registered OnDeviceRatesReceivedListener, if any. */
+	private void publishDeviceRates(URMDeviceStatReader source, float[] rates) {
+		OnDeviceRatesReceivedListener listener = mDeviceListener;
+		if (listener != null && rates != null) {
+			listener.onDeviceRatesReceived(source, rates);
+		}
+	}
+	
+	/** Publish per-thread usage to the registered OnThreadUsageReceivedListener, if any. */
+	private void publishThreadUsage(URMThreadStatReader source, float[] usage) {
+		OnThreadUsageReceivedListener listener = mThreadListener;
+		if (listener != null && usage != null) {
+			listener.onThreadUsageReceived(source, usage);
+		}
+	}
+	
+	/** Tell the registered OnThreadUsageReceivedListener, if any, that the process exited. */
+	private void publishThreadProcessExited(URMThreadStatReader source) {
+		OnThreadUsageReceivedListener listener = mThreadListener;
+		if (listener != null) {
+			listener.onThreadProcessExited(source);
+		}
+	}
+	
 	/** 
 	 * Begin monitoring resources. 
-	 * Make sure to register an OnResourcesReceievedListener first.
+	 * Make sure to register an OnResourcesReceievedListener and subscribe() first.
 	 * 
 	 * @returns True if monitoring has been started | False if monitoring was already 
 	 * started or an error occured.
@@ -99,30 +287,203 @@ public class URMResourceMonitor {
 	private class ResourceMonitorTask implements Runnable {
 		URMCPUStatReader mCPUStatReader;
 		
+		/** 
+		 * Created on the first tick that has a subscription to CHANNEL_DISK and
+		 * closed as soon as there is none, so a new subscription starts from a
+		 * fresh reading.
+		 */
+		URMDiskStatReader mDiskStatReader;
+		
+		/** Created and closed with the subscriptions to CHANNEL_NET, like mDiskStatReader. */
+		URMNetStatReader mNetStatReader;
+		
+		/** 
+		 * Created when CHANNEL_THREADS is subscribed and closed as soon as it
+		 * is not, so the drill-down costs nothing while inactive.
+		 */
+		URMThreadStatReader mThreadStatReader;
+		
+		/** 
+		 * The subscription whose process exited. It is not read again, so a
+		 * reused pid is never mistaken for the original process.
+		 */
+		Subscription mExitedSubscription;
+		
+		/** 
+		 * Set if a device source could not be opened, so it is not retried
+		 * every tick. Cleared when the channel is no longer subscribed.
+		 */
+		boolean mDiskFailed = false;
+		boolean mNetFailed = false;
+		
+		/** Whether the CPU source was read on the last tick. */
+		boolean mCPUWasRead = false;
+		
 		public ResourceMonitorTask() throws FileNotFoundException {
 			mCPUStatReader = new URMCPUStatReader();
 		}
 		
+		/** 
+		 * Reads and publishes the CPU usages. The first tick after CHANNEL_CPU
+		 * is subscribed only takes the initial reading and publishes nothing.
+		 */
+		private float[] pollCPU(float[] results) {
+			mCPUStatReader.setCPUMask(mCPUMask);
+			
+			if (!mCPUWasRead) {
+				mCPUStatReader.initializeReading();
+				mCPUWasRead = true;
+				return results;
+			}
+			
+			results = mCPUStatReader.getUsage(results);
+			Log.d(TAG, "cpuResults=" + Arrays.toString(results));
+			publishResults(results);
+			return results;
+		}
+		
+		/** Reads and publishes the disk rates. */
+		private float[] pollDisk(float[] results) {
+			if (mDiskStatReader == null && !mDiskFailed) {
+				try {
+					mDiskStatReader = new URMDiskStatReader();
+				} catch (FileNotFoundException e) {
+					Log.e(TAG, "pollDisk caught FileNotFound: " + e.getMessage());
+					mDiskFailed = true;
+				}
+			}
+			
+			if (mDiskStatReader != null) {
+				results = mDiskStatReader.getRates(results);
+				publishDeviceRates(mDiskStatReader, results);
+			}
+			return results;
+		}
+		
+		/** Reads and publishes the network rates. */
+		private float[] pollNet(float[] results) {
+			if (mNetStatReader == null && !mNetFailed) {
+				try {
+					mNetStatReader = new URMNetStatReader();
+				} catch (FileNotFoundException e) {
+					Log.e(TAG, "pollNet caught FileNotFound: " + e.getMessage());
+					mNetFailed = true;
+				}
+			}
+			
+			if (mNetStatReader != null) {
+				results = mNetStatReader.getRates(results);
+				publishDeviceRates(mNetStatReader, results);
+			}
+			return results;
+		}
+		
+		/** Reads and publishes the per-thread usage of the subscribed process. */
+		private float[] pollThreads(float[] results) {
+			Subscription subscription = mThreadSubscription;
+			
+			// The subscription was removed after this tick read the channels,
+			// or its process has already exited.
+			if (subscription == null || subscription == mExitedSubscription) {
+				stopThreads();
+				return null;
+			}
+			
+			int pid = subscription.mPid;
+			if (mThreadStatReader != null && mThreadStatReader.getPid() != pid) {
+				stopThreads();
+			}
+			
+			if (mThreadStatReader == null) {
+				mThreadStatReader = new URMThreadStatReader(pid);
+			}
+			
+			results = mThreadStatReader.getUsage(results);
+			if (results == null) {
+				publishThreadProcessExited(mThreadStatReader);
+				mExitedSubscription = subscription;
+				stopThreads();
+				return null;
+			}
+			
+			publishThreadUsage(mThreadStatReader, results);
+			return results;
+		}
+		
+		/** Closes the drill-down, if any. */
+		private void stopThreads() {
+			if (mThreadStatReader != null) {
+				mThreadStatReader.close();
+				mThreadStatReader = null;
+			}
+		}
+		
+		/** Closes the disk source, if open. */
+		private void stopDisk() {
+			if (mDiskStatReader != null) {
+				mDiskStatReader.close();
+				mDiskStatReader = null;
+			}
+			mDiskFailed = false;
+		}
+		
+		/** Closes the network source, if open. */
+		private void stopNet() {
+			if (mNetStatReader != null) {
+				mNetStatReader.close();
+				mNetStatReader = null;
+			}
+			mNetFailed = false;
+		}
+		
+		/** Releases the files held by the readers. */
+		private void close() {
+			stopThreads();
+			stopDisk();
+			stopNet();
+			mCPUStatReader.close();
+		}
+		
 		
 		public void run() {
 			// Supposed to be null on the first call to getUsage().
 			float[] cpuResults = null; 
 			
-			// Initialize
-			mCPUStatReader.initializeReading();
-			
-			// Sleep the standard amount of time to allow for proper timing
-			// between the initialization and first reading
-			try {
-				Thread.sleep(POLL_FREQUENCY_MS);
-			} catch (InterruptedException e1) {
-				e1.printStackTrace();
-			}
+			// Disk and network results, reused the same way.
+			float[] diskResults = null;
+			float[] netResults = null;
+			float[] threadResults = null;
 			
 			while(!Thread.interrupted()) {
-				cpuResults = mCPUStatReader.getUsage(cpuResults);
-				Log.d(TAG, "cpuResults=" + Arrays.toString(cpuResults));
-				publishResults(cpuResults);
+				// Only read what is subscribed to.
+				int channels = mChannels;
+				
+				if ((channels & CHANNEL_CPU) != 0) {
+					cpuResults = pollCPU(cpuResults);
+				} else {
+					mCPUWasRead = false;
+				}
+				
+				if ((channels & CHANNEL_DISK) != 0) {
+					diskResults = pollDisk(diskResults);
+				} else if (mDiskStatReader != null || mDiskFailed) {
+					stopDisk();
+					diskResults = null;
+				}
+				
+				if ((channels & CHANNEL_NET) != 0) {
+					netResults = pollNet(netResults);
+				} else if (mNetStatReader != null || mNetFailed) {
+					stopNet();
+					netResults = null;
+				}
+				
+				if ((channels & CHANNEL_THREADS) != 0) {
+					threadResults = pollThreads(threadResults);
+				} else if (mThreadStatReader != null) {
+					stopThreads();
+					threadResults = null;
+				}
 				
 				try {
 					Thread.sleep(POLL_FREQUENCY_MS);
@@ -131,6 +492,8 @@ public class URMResourceMonitor {
 					break;
 				}
 			}
+			
+			close();
 		}
 	};
 }
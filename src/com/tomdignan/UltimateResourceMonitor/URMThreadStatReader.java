@@ -0,0 +1,378 @@
+package com.tomdignan.UltimateResourceMonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads the CPU time of each thread of one process from
+ * /proc/<pid>/task/<tid>/stat and reports per-thread usage and the core each
+ * thread last ran on. Each line has the form:
+ *
+ *   <tid> (<name>) <state> <ppid> ... <utime> <stime> ... <processor> ...
+ *
+ * where utime and stime are fields 14 and 15 and processor is field 39,
+ * counting from 1. The name may itself contain spaces and parentheses, so
+ * the fields are counted from the last ')'.
+ *
+ * Threads keep the same slot for as long as they are alive. The path of each
+ * thread's stat file is built once and its name is only read again when the
+ * slot is given to a new thread. Each stat file is opened, read and closed
+ * in turn, so at most one descriptor is held however many threads the
+ * process has. The slot arrays grow when a process has more threads than
+ * they hold, so no thread is ever left out.
+ */
+public class URMThreadStatReader {
+	@SuppressWarnings("unused")
+	private static final String TAG = "URMThreadStatReader";
+
+	/** Used to mark threads in the results array that have no usage yet. */
+	public static final float THREAD_IS_NEW = -1;
+
+	/** Fraction of one core used by the thread [0, 1] */
+	public static final int FIELD_USAGE = 0;
+
+	/** The core the thread last ran on */
+	public static final int FIELD_CORE = 1;
+
+	/** Number of fields per thread */
+	public static final int FIELD_COUNT = 2;
+
+	/** Initial number of thread slots. Grows as needed. */
+	private static final int INITIAL_THREADS = 64;
+
+	/** Marks a free slot. No thread has tid 0. */
+	private static final int NO_TID = 0;
+
+	/** Clock ticks per second used by /proc (USER_HZ). */
+	private static final int CLOCK_TICKS_PER_SECOND = 100;
+
+	/** Index of utime among the numbers after the state (field 4 onwards). */
+	private static final int INDEX_UTIME = 10;
+
+	/** Index of stime among the numbers after the state. */
+	private static final int INDEX_STIME = 11;
+
+	/** Index of processor among the numbers after the state. */
+	private static final int INDEX_PROCESSOR = 35;
+
+	/** The process being drilled into */
+	private final int mPid;
+
+	/** /proc/<pid>/task */
+	private final File mTaskDir;
+
+	/** Used for buffering and parsing each stat file */
+	private URMProcParser mParser = new URMProcParser(1024);
+
+	/** The thread in each slot, or NO_TID */
+	private int[] mTids = new int[INITIAL_THREADS];
+
+	/** The stat file of the thread in each slot */
+	private File[] mStatPaths = new File[INITIAL_THREADS];
+
+	/** The name of the thread in each slot, read when the slot is assigned */
+	private String[] mNames = new String[INITIAL_THREADS];
+
+	/** utime + stime of each slot from the last reading */
+	private long[] mLastTicks = new long[INITIAL_THREADS];
+
+	/** Whether each slot has a reading from a previous call to compare against */
+	private boolean[] mHasLastTicks = new boolean[INITIAL_THREADS];
+
+	/** Whether each slot was seen during the current reading */
+	private boolean[] mSeen = new boolean[INITIAL_THREADS];
+
+	/** The slot that was found for each directory entry during the last reading */
+	private int[] mEntrySlots = new int[INITIAL_THREADS];
+
+	/** One past the highest slot in use */
+	private int mSlotCount;
+
+	/** Time of the last reading, from System.nanoTime() */
+	private long mLastTimeNanos;
+
+	/** Set once the process is found to have exited. */
+	private boolean mExited = false;
+
+	/**
+	 * Constructs a reader for the threads of a process. Nothing is read until
+	 * the first call to getUsage().
+	 */
+	public URMThreadStatReader(int pid) {
+		this(pid, "/proc");
+	}
+
+	/** Used for providing a mock /proc for testing */
+	public URMThreadStatReader(int pid, String mockProcPath) {
+		mPid = pid;
+		mTaskDir = new File(mockProcPath + "/" + pid + "/task");
+	}
+
+	/** Returns the process being drilled into. */
+	public int getPid() {
+		return mPid;
+	}
+
+	/** Returns whether the process has exited. */
+	public synchronized boolean hasExited() {
+		return mExited;
+	}
+
+	/** Returns the thread id in a slot of the last results, or 0 if the slot is empty. */
+	public synchronized int getThreadId(int slot) {
+		return slot < mTids.length ? mTids[slot] : NO_TID;
+	}
+
+	/** Returns the name of the thread in a slot of the last results, or null if the slot is empty. */
+	public synchronized String getThreadName(int slot) {
+		return slot < mNames.length ? mNames[slot] : null;
+	}
+
+	/**
+	 * Returns the usage of every thread of the process since the last call.
+	 *
+	 * Threads keep the same slot for as long as they are alive. A thread that
+	 * started since the last call has THREAD_IS_NEW as its usage. Slots of
+	 * threads that have exited have a thread id of 0 and should be skipped.
+	 *
+	 * @param float[] resultHolder - If null or too small for the threads, a
+	 * new float[] will be created and returned. On subsequent calls, you
+	 * should pass the returned array back in in order to reuse it.
+	 *
+	 * @return float[] result [<#slots>, <slot0 usage>, <slot0 core>, <slot1 usage>, ...]
+	 * or null if the process has exited. Once the process has exited this
+	 * always returns null without looking at /proc again, so a reused pid is
+	 * never reported as the same process.
+	 */
+	public synchronized float[] getUsage(float[] resultHolder) {
+		if (mExited) {
+			return null;
+		}
+
+		long now = System.nanoTime();
+		float seconds = (now - mLastTimeNanos) / 1000000000f;
+
+		String[] entries = mTaskDir.list();
+		if (entries == null) {
+			mExited = true;
+			close();
+			return null;
+		}
+
+		// Every thread may need a new slot, so make room up front.
+		if (mSlotCount + entries.length > mTids.length) {
+			growSlots(mSlotCount + entries.length);
+		}
+		if (entries.length > mEntrySlots.length) {
+			mEntrySlots = new int[Math.max(entries.length, mEntrySlots.length * 2)];
+		}
+
+		float[] results;
+
+		// Save on allocation.
+		if (resultHolder == null || resultHolder.length < mTids.length * FIELD_COUNT + 1) {
+			results = new float[mTids.length * FIELD_COUNT + 1];
+		} else {
+			results = resultHolder;
+		}
+
+		for (int slot = 0; slot < mSlotCount; slot++) {
+			mSeen[slot] = false;
+		}
+
+		for (int entry = 0; entry < entries.length; entry++) {
+			int tid;
+			try {
+				tid = Integer.parseInt(entries[entry]);
+			} catch (NumberFormatException e) {
+				continue;
+			}
+
+			int slot = slotFor(tid, entry);
+			if (!readThread(slot, results, seconds)) {
+				// The thread exited between listing and reading.
+				release(slot);
+				continue;
+			}
+			mSeen[slot] = true;
+		}
+
+		// Release the threads that have exited.
+		int slotCount = 0;
+		for (int slot = 0; slot < mSlotCount; slot++) {
+			if (mTids[slot] != NO_TID && !mSeen[slot]) {
+				release(slot);
+			}
+			if (mTids[slot] != NO_TID) {
+				slotCount = slot + 1;
+			} else {
+				results[slot * FIELD_COUNT + FIELD_USAGE + 1] = THREAD_IS_NEW;
+				results[slot * FIELD_COUNT + FIELD_CORE + 1] = -1;
+			}
+		}
+		mSlotCount = slotCount;
+		results[0] = slotCount;
+		mLastTimeNanos = now;
+
+		return results;
+	}
+
+	/**
+	 * Returns the slot of a thread, assigning a free slot if the thread is new.
+	 *
+	 * @param entry The index of the thread in the directory listing, used to
+	 * try the slot from the last reading first.
+	 * @return int slot
+	 */
+	private int slotFor(int tid, int entry) {
+		// Fast path: the thread list usually does not change between readings.
+		int hint = mEntrySlots[entry];
+		if (mTids[hint] == tid) {
+			return hint;
+		}
+
+		int free = -1;
+		for (int slot = 0; slot < mSlotCount; slot++) {
+			if (mTids[slot] == tid) {
+				mEntrySlots[entry] = slot;
+				return slot;
+			}
+			if (free < 0 && mTids[slot] == NO_TID) {
+				free = slot;
+			}
+		}
+
+		if (free < 0) {
+			free = mSlotCount++;
+		}
+
+		mTids[free] = tid;
+		mStatPaths[free] = new File(mTaskDir, tid + "/stat");
+		mNames[free] = null;
+		mHasLastTicks[free] = false;
+		mEntrySlots[entry] = free;
+		return free;
+	}
+
+	/** Grows the slot arrays to hold at least capacity threads, keeping their contents. */
+	private void growSlots(int capacity) {
+		capacity = Math.max(capacity, mTids.length * 2);
+
+		int[] tids = new int[capacity];
+		System.arraycopy(mTids, 0, tids, 0, mTids.length);
+		mTids = tids;
+
+		File[] statPaths = new File[capacity];
+		System.arraycopy(mStatPaths, 0, statPaths, 0, mStatPaths.length);
+		mStatPaths = statPaths;
+
+		String[] names = new String[capacity];
+		System.arraycopy(mNames, 0, names, 0, mNames.length);
+		mNames = names;
+
+		long[] lastTicks = new long[capacity];
+		System.arraycopy(mLastTicks, 0, lastTicks, 0, mLastTicks.length);
+		mLastTicks = lastTicks;
+
+		boolean[] hasLastTicks = new boolean[capacity];
+		System.arraycopy(mHasLastTicks, 0, hasLastTicks, 0, mHasLastTicks.length);
+		mHasLastTicks = hasLastTicks;
+
+		boolean[] seen = new boolean[capacity];
+		System.arraycopy(mSeen, 0, seen, 0, mSeen.length);
+		mSeen = seen;
+	}
+
+	/**
+	 * Reads the stat file of the thread in a slot and stores its usage and
+	 * core in results.
+	 *
+	 * @return boolean True if the file was read.
+	 */
+	private boolean readThread(int slot, float[] results, float seconds) {
+		RandomAccessFile statFile = null;
+		try {
+			statFile = new RandomAccessFile(mStatPaths[slot], "r");
+			mParser.readStart(statFile);
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (statFile != null) {
+				try {
+					statFile.close();
+				} catch (IOException e) {
+					//Log.e(TAG, "readThread(): caught IOException " + e.getMessage());
+				}
+			}
+		}
+
+		byte[] buffer = mParser.getBuffer();
+		int limit = mParser.getLimit();
+
+		// The name ends at the last ')'.
+		int nameEnd = limit - 1;
+		while (nameEnd >= 0 && buffer[nameEnd] != ')') nameEnd--;
+		if (nameEnd < 0) {
+			return false;
+		}
+
+		if (mNames[slot] == null) {
+			int nameStart = 0;
+			while (nameStart < nameEnd && buffer[nameStart] != '(') nameStart++;
+			mNames[slot] = new String(buffer, nameStart + 1, Math.max(nameEnd - nameStart - 1, 0));
+		}
+
+		// Skip the state, then count the numbers that follow it.
+		int i = nameEnd + 4;
+		long ticks = 0;
+		int core = -1;
+		for (int index = 0; index <= INDEX_PROCESSOR; index++) {
+			i = mParser.nextNumber(Math.min(i, limit));
+			if (i < 0) {
+				break;
+			}
+
+			long value = mParser.parseLong(i);
+			i = mParser.getEnd();
+
+			if (index == INDEX_UTIME || index == INDEX_STIME) {
+				ticks += value;
+			} else if (index == INDEX_PROCESSOR) {
+				core = (int) value;
+			}
+		}
+
+		int base = slot * FIELD_COUNT + 1;
+		if (mHasLastTicks[slot] && seconds > 0) {
+			long diff = Math.max(ticks - mLastTicks[slot], 0);
+			results[base + FIELD_USAGE] = diff / (seconds * CLOCK_TICKS_PER_SECOND);
+		} else {
+			results[base + FIELD_USAGE] = THREAD_IS_NEW;
+		}
+		results[base + FIELD_CORE] = core;
+
+		mLastTicks[slot] = ticks;
+		mHasLastTicks[slot] = true;
+		return true;
+	}
+
+	/** Frees a slot. */
+	private void release(int slot) {
+		mStatPaths[slot] = null;
+		mTids[slot] = NO_TID;
+		mNames[slot] = null;
+	}
+
+	/**
+	 * Call this when you are done using the reader!
+	 */
+	public synchronized void close() {
+		for (int slot = 0; slot < mSlotCount; slot++) {
+			if (mTids[slot] != NO_TID) {
+				release(slot);
+			}
+		}
+		mSlotCount = 0;
+	}
+}